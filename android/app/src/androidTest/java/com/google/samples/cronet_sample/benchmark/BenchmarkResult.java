@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Measurements of one pass of requests. Requests complete on Cronet's callback threads, so the
+ * recording methods are thread safe.
+ */
+final class BenchmarkResult {
+
+    private final List<Long> latenciesNanos = new ArrayList<>();
+    private final Map<Integer, List<Long>> latenciesNanosByPriority = new TreeMap<>();
+    private final Set<String> protocols = new TreeSet<>();
+    private int failures;
+    private int cacheHits;
+    private long bodyBytes;
+    private long receivedBytes;
+
+    private long wallTimeNanos;
+    private long javaBytesAllocated;
+    private long nativeHeapDeltaBytes;
+
+    synchronized void onSucceeded(long latencyNanos, int priority, String protocol,
+            boolean cached, long requestBodyBytes, long requestReceivedBytes) {
+        latenciesNanos.add(latencyNanos);
+        List<Long> priorityLatencies = latenciesNanosByPriority.get(priority);
+        if (priorityLatencies == null) {
+            priorityLatencies = new ArrayList<>();
+            latenciesNanosByPriority.put(priority, priorityLatencies);
+        }
+        priorityLatencies.add(latencyNanos);
+        protocols.add(protocol == null || protocol.isEmpty() ? "unknown" : protocol);
+        if (cached) {
+            cacheHits++;
+        }
+        bodyBytes += requestBodyBytes;
+        receivedBytes += requestReceivedBytes;
+    }
+
+    synchronized void onFailed() {
+        failures++;
+    }
+
+    synchronized int failures() {
+        return failures;
+    }
+
+    synchronized void setTotals(long wallTimeNanos, long javaBytesAllocated,
+            long nativeHeapDeltaBytes) {
+        this.wallTimeNanos = wallTimeNanos;
+        this.javaBytesAllocated = javaBytesAllocated;
+        this.nativeHeapDeltaBytes = nativeHeapDeltaBytes;
+    }
+
+    synchronized JSONObject toJson() throws JSONException {
+        int requests = latenciesNanos.size() + failures;
+        double wallTimeSeconds = wallTimeNanos / 1e9;
+
+        JSONObject json = new JSONObject()
+                .put("requests", requests)
+                .put("failures", failures)
+                .put("cache_hits", cacheHits)
+                .put("cache_hit_ratio", requests == 0 ? 0 : (double) cacheHits / requests)
+                .put("protocols", new JSONArray(protocols))
+                .put("wall_time_ms", wallTimeNanos / 1e6)
+                .put("throughput", new JSONObject()
+                        .put("requests_per_second", latenciesNanos.size() / wallTimeSeconds)
+                        .put("body_bytes_per_second", bodyBytes / wallTimeSeconds)
+                        .put("received_bytes_per_second", receivedBytes / wallTimeSeconds))
+                .put("latency_ms", latencyJson(latenciesNanos))
+                .put("allocations", new JSONObject()
+                        .put("java_bytes", javaBytesAllocated)
+                        .put("java_bytes_per_request",
+                                requests == 0 ? 0 : javaBytesAllocated / requests)
+                        .put("native_heap_delta_bytes", nativeHeapDeltaBytes));
+        if (latenciesNanosByPriority.size() > 1) {
+            JSONObject byPriority = new JSONObject();
+            for (Map.Entry<Integer, List<Long>> entry : latenciesNanosByPriority.entrySet()) {
+                byPriority.put(EngineConfig.priorityName(entry.getKey()),
+                        latencyJson(entry.getValue()));
+            }
+            json.put("latency_ms_by_priority", byPriority);
+        }
+        return json;
+    }
+
+    /**
+     * Latency percentiles, in milliseconds, of the given durations in nanoseconds.
+     */
+    static JSONObject latencyJson(List<Long> latenciesNanos) throws JSONException {
+        List<Long> sorted = new ArrayList<>(latenciesNanos);
+        Collections.sort(sorted);
+        return new JSONObject()
+                .put("p50", percentileMs(sorted, 50))
+                .put("p90", percentileMs(sorted, 90))
+                .put("p99", percentileMs(sorted, 99))
+                .put("max", percentileMs(sorted, 100));
+    }
+
+    // Nearest-rank percentile, 0 when nothing succeeded.
+    private static double percentileMs(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1)) / 1e6;
+    }
+}
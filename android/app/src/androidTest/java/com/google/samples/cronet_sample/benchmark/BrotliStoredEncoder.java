@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample.benchmark;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Wraps data in a valid Brotli stream (RFC 7932) made of uncompressed meta-blocks.
+ *
+ * <p>There is no Brotli encoder in the platform, so this lets the local server answer
+ * {@code Accept-Encoding: br} and exercise Cronet's Brotli negotiation and decoder. The payload
+ * isn't actually compressed, byte savings have to be measured against a real Brotli server.
+ */
+final class BrotliStoredEncoder {
+
+    // MLEN - 1 is written on 4 nibbles, which caps each meta-block at 64 KiB.
+    private static final int MAX_META_BLOCK_BYTES = 1 << 16;
+
+    private BrotliStoredEncoder() {}
+
+    static byte[] encode(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + data.length / 1024 + 8);
+        // The stream header is a single 0 bit (WBITS = 16), which shares the first byte with the
+        // first meta-block header.
+        boolean streamHeaderWritten = false;
+        for (int offset = 0; offset < data.length; offset += MAX_META_BLOCK_BYTES) {
+            int length = Math.min(MAX_META_BLOCK_BYTES, data.length - offset);
+            // Bits, least significant first: ISLAST = 0, MNIBBLES = 0 (4 nibbles),
+            // MLEN - 1 on 16 bits, ISUNCOMPRESSED = 1, then zero padding to the byte boundary.
+            long bits = ((long) (length - 1) << 3) | (1L << 19);
+            int bitCount = 20;
+            if (!streamHeaderWritten) {
+                bits <<= 1;
+                bitCount++;
+                streamHeaderWritten = true;
+            }
+            for (int written = 0; written < bitCount; written += 8) {
+                out.write((int) (bits >>> written) & 0xff);
+            }
+            out.write(data, offset, length);
+        }
+        // Final empty meta-block: ISLAST = 1, ISLASTEMPTY = 1, preceded by the stream header if
+        // there was no data at all.
+        out.write(streamHeaderWritten ? 0b11 : 0b110);
+        return out.toByteArray();
+    }
+}
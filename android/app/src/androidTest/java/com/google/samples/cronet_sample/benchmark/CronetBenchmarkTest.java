@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.chromium.net.CronetEngine;
+import org.chromium.net.CronetException;
+import org.chromium.net.UrlRequest;
+import org.chromium.net.UrlResponseInfo;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads images from a {@link LocalImageServer} with each {@link EngineConfig} under each
+ * {@link ServerConfig}, and writes throughput, latency percentiles and allocations as JSON.
+ *
+ * <p>The benchmarks take minutes, so they are skipped unless the {@value #ENABLE_ARGUMENT}
+ * instrumentation argument is {@code true}. Run this one with
+ * {@code ./gradlew :app:connectedDebugAndroidTest
+ * -Pandroid.testInstrumentationRunnerArguments.benchmark=true
+ * -Pandroid.testInstrumentationRunnerArguments.class=com.google.samples.cronet_sample.benchmark.CronetBenchmarkTest}
+ * and fetch the report with
+ * {@code adb pull /sdcard/Android/data/com.google.samples.cronet_sample/files/cronet-benchmark.json}.
+ * Every result is also logged under the {@value #TAG} tag.
+ *
+ * <p>Each cell uses a fresh engine and cache, and issues two passes over the same URLs, all
+ * requests of a pass being started at once like the image grid does. The first pass shows
+ * connection setup and transfer, the second one how much the cache saves. The 10 MiB caches
+ * hold a whole pass of every server and the 512 KiB ones don't, their hit ratio shows how the
+ * cache copes with eviction. Java allocations are counted process wide, so they include the
+ * in-process server: compare them between cells rather than reading them as absolute numbers.
+ *
+ * <p>Priorities only matter when requests compete for the bandwidth, i.e. on the throttled
+ * server. Over HTTP/1.1 Cronet hands its few connections per host to the highest priority
+ * requests first. Over HTTP/2 every request is sent right away and the local server ignores
+ * stream priorities, so the mixed priority cells should show no difference there.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CronetBenchmarkTest {
+
+    static final String TAG = "CronetBenchmark";
+    static final String ENABLE_ARGUMENT = "benchmark";
+    private static final String REPORT_FILE = "cronet-benchmark.json";
+
+    private static final int IMAGES_PER_PASS = 24;
+    private static final String[] PASSES = {"cold", "warm"};
+    private static final long PASS_TIMEOUT_SECONDS = 120;
+    private static final int READ_BUFFER_BYTES = 32 * 1024;
+
+    private static final List<ServerConfig> SERVERS = Arrays.asList(
+            new ServerConfig("local_32k", 0, 0, 32 * 1024, true),
+            new ServerConfig("local_256k", 0, 0, 256 * 1024, true),
+            new ServerConfig("local_32k_incompressible", 0, 0, 32 * 1024, false),
+            new ServerConfig("slow_32k", 150, 200 * 1024, 32 * 1024, true));
+
+    private static List<EngineConfig> engines() {
+        EngineConfig defaults = EngineConfig.defaults();
+        return Arrays.asList(
+                defaults,
+                defaults.withHttpCache("cache_disabled",
+                        CronetEngine.Builder.HTTP_CACHE_DISABLED, 0),
+                defaults.withHttpCache("cache_in_memory_10m",
+                        CronetEngine.Builder.HTTP_CACHE_IN_MEMORY, 10 * 1024 * 1024),
+                defaults.withHttpCache("cache_disk_10m",
+                        CronetEngine.Builder.HTTP_CACHE_DISK, 10 * 1024 * 1024),
+                // Smaller than a pass of any server, these show the hit ratio under eviction.
+                defaults.withHttpCache("cache_in_memory_512k",
+                        CronetEngine.Builder.HTTP_CACHE_IN_MEMORY, 512 * 1024),
+                defaults.withHttpCache("cache_disk_512k",
+                        CronetEngine.Builder.HTTP_CACHE_DISK, 512 * 1024),
+                defaults.withHttp2("http2_disabled", false),
+                defaults.withBrotli("brotli_disabled", false),
+                defaults.withRequestPriorities("mixed_priority",
+                        UrlRequest.Builder.REQUEST_PRIORITY_HIGHEST,
+                        UrlRequest.Builder.REQUEST_PRIORITY_IDLE),
+                defaults.withHttp2("mixed_priority_http1", false).withRequestPriorities(
+                        "mixed_priority_http1",
+                        UrlRequest.Builder.REQUEST_PRIORITY_HIGHEST,
+                        UrlRequest.Builder.REQUEST_PRIORITY_IDLE),
+                defaults.withCallbackThreads("callback_threads_1", 1));
+    }
+
+    @Before
+    public void setUp() {
+        assumeBenchmarksEnabled();
+    }
+
+    @Test
+    public void benchmarkMatrix() throws Exception {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        Context targetContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        JSONArray results = new JSONArray();
+        String cronetVersion = null;
+        int failures = 0;
+        List<String> cacheMisses = new ArrayList<>();
+        for (ServerConfig serverConfig : SERVERS) {
+            try (LocalImageServer server = new LocalImageServer(testContext, serverConfig)) {
+                for (EngineConfig engineConfig : engines()) {
+                    File storageDir = new File(targetContext.getCacheDir(),
+                            "benchmark/" + serverConfig.name + "/" + engineConfig.name);
+                    deleteRecursively(storageDir);
+                    assertTrue(storageDir.mkdirs());
+
+                    ExecutorService executor =
+                            Executors.newFixedThreadPool(engineConfig.callbackThreads);
+                    CronetEngine engine = engineConfig.build(targetContext, storageDir);
+                    cronetVersion = engine.getVersionString();
+                    try {
+                        for (String pass : PASSES) {
+                            int serverRequestsBefore = server.requestCount();
+                            BenchmarkResult result =
+                                    runPass(engine, executor, engineConfig, server);
+                            int serverRequests = server.requestCount() - serverRequestsBefore;
+                            failures += result.failures();
+                            if (pass.equals("warm") && cachesPass(engineConfig, serverConfig)
+                                    && serverRequests != 0) {
+                                cacheMisses.add(serverConfig.name + "/" + engineConfig.name);
+                            }
+                            JSONObject json = result.toJson()
+                                    .put("server", serverConfig.toJson())
+                                    .put("engine", engineConfig.toJson())
+                                    .put("pass", pass)
+                                    .put("server_requests", serverRequests);
+                            Log.i(TAG, json.toString());
+                            results.put(json);
+                        }
+                    } finally {
+                        engine.shutdown();
+                        executor.shutdown();
+                        deleteRecursively(storageDir);
+                    }
+                }
+            }
+        }
+
+        File report = writeReport(targetContext, REPORT_FILE, new JSONObject()
+                .put("device", Build.MANUFACTURER + " " + Build.MODEL)
+                .put("sdk_int", Build.VERSION.SDK_INT)
+                .put("cronet_version", cronetVersion)
+                .put("results", results));
+        Log.i(TAG, "Report written to " + report);
+
+        // A failing request usually means the local server certificate isn't trusted, the
+        // numbers wouldn't be comparable.
+        assertEquals("Failed requests, see logcat for details", 0, failures);
+        // The responses are fresh for an hour, a cache large enough for the pass that lets the
+        // warm pass reach the server isn't doing its job.
+        assertTrue("Warm pass reached the server: " + cacheMisses, cacheMisses.isEmpty());
+    }
+
+    /**
+     * Whether the engine's HTTP cache can hold every response of a pass, with half a pass to
+     * spare for headers and the cache's own bookkeeping. Smaller caches evict, their warm pass
+     * is expected to reach the server and only its hit ratio is reported.
+     */
+    private static boolean cachesPass(EngineConfig engineConfig, ServerConfig serverConfig) {
+        boolean cachesHttp = engineConfig.httpCacheMode == CronetEngine.Builder.HTTP_CACHE_IN_MEMORY
+                || engineConfig.httpCacheMode == CronetEngine.Builder.HTTP_CACHE_DISK;
+        long passBytes = (long) IMAGES_PER_PASS * serverConfig.bodySizeBytes;
+        return cachesHttp && engineConfig.httpCacheSizeBytes >= passBytes * 3 / 2;
+    }
+
+    private static BenchmarkResult runPass(CronetEngine engine, ExecutorService executor,
+            EngineConfig engineConfig, LocalImageServer server) throws InterruptedException {
+        BenchmarkResult result = new BenchmarkResult();
+        CountDownLatch done = new CountDownLatch(IMAGES_PER_PASS);
+
+        long javaBytesBefore = javaBytesAllocated();
+        long nativeHeapBefore = Debug.getNativeHeapAllocatedSize();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < IMAGES_PER_PASS; i++) {
+            int priority =
+                    engineConfig.requestPriorities[i % engineConfig.requestPriorities.length];
+            engine.newUrlRequestBuilder(server.imageUrl(i),
+                    new TimedCallback(result, priority, done), executor)
+                    .setPriority(priority)
+                    .build()
+                    .start();
+        }
+        if (!done.await(PASS_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new AssertionError("Requests didn't complete in " + PASS_TIMEOUT_SECONDS + "s");
+        }
+        result.setTotals(System.nanoTime() - startNanos,
+                javaBytesAllocated() - javaBytesBefore,
+                Debug.getNativeHeapAllocatedSize() - nativeHeapBefore);
+        return result;
+    }
+
+    static void assumeBenchmarksEnabled() {
+        assumeTrue("Pass -e " + ENABLE_ARGUMENT + " true to run the benchmarks",
+                Boolean.parseBoolean(
+                        InstrumentationRegistry.getArguments().getString(ENABLE_ARGUMENT)));
+    }
+
+    static long javaBytesAllocated() {
+        // Cumulative number of bytes allocated on the Java heap since the process started.
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+
+    static File writeReport(Context context, String fileName, JSONObject report)
+            throws IOException, JSONException {
+        File file = new File(context.getExternalFilesDir(null), fileName);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(report.toString(2).getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Reads and discards the body, unlike {@code ReadToMemoryCronetCallback} which logs every
+     * step and would dominate the measurements.
+     */
+    private static class TimedCallback extends UrlRequest.Callback {
+
+        private final BenchmarkResult result;
+        private final int priority;
+        private final CountDownLatch done;
+        private final long startNanos = System.nanoTime();
+        private long bodyBytes;
+
+        TimedCallback(BenchmarkResult result, int priority, CountDownLatch done) {
+            this.result = result;
+            this.priority = priority;
+            this.done = done;
+        }
+
+        @Override
+        public void onRedirectReceived(
+                UrlRequest request, UrlResponseInfo info, String newLocationUrl) {
+            request.followRedirect();
+        }
+
+        @Override
+        public void onResponseStarted(UrlRequest request, UrlResponseInfo info) {
+            request.read(ByteBuffer.allocateDirect(READ_BUFFER_BYTES));
+        }
+
+        @Override
+        public void onReadCompleted(
+                UrlRequest request, UrlResponseInfo info, ByteBuffer byteBuffer) {
+            bodyBytes += byteBuffer.position();
+            byteBuffer.clear();
+            request.read(byteBuffer);
+        }
+
+        @Override
+        public void onSucceeded(UrlRequest request, UrlResponseInfo info) {
+            if (info.getHttpStatusCode() == 200) {
+                result.onSucceeded(System.nanoTime() - startNanos, priority,
+                        info.getNegotiatedProtocol(), info.wasCached(), bodyBytes,
+                        info.getReceivedByteCount());
+            } else {
+                Log.e(TAG, "Unexpected status " + info.getHttpStatusCode() + " for "
+                        + info.getUrl());
+                result.onFailed();
+            }
+            done.countDown();
+        }
+
+        @Override
+        public void onFailed(UrlRequest request, UrlResponseInfo info, CronetException error) {
+            Log.e(TAG, "Request failed", error);
+            result.onFailed();
+            done.countDown();
+        }
+
+        @Override
+        public void onCanceled(UrlRequest request, UrlResponseInfo info) {
+            result.onFailed();
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample.benchmark;
+
+import android.content.Context;
+
+import org.chromium.net.CronetEngine;
+import org.chromium.net.ExperimentalCronetEngine;
+import org.chromium.net.UrlRequest;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+
+/**
+ * The {@link CronetEngine.Builder} options and request settings a benchmark cell runs with.
+ *
+ * <p>{@link #defaults()} mirrors {@code CronetApplication.createDefaultCronetEngine} and the
+ * requests issued by {@code ViewAdapter}, the other configurations change one option at a time.
+ */
+final class EngineConfig {
+
+    final String name;
+    final int httpCacheMode;
+    final long httpCacheSizeBytes;
+    final boolean http2;
+    final boolean brotli;
+    // Request i of a pass is issued with requestPriorities[i % requestPriorities.length].
+    final int[] requestPriorities;
+    final int callbackThreads;
+
+    private EngineConfig(String name, int httpCacheMode, long httpCacheSizeBytes, boolean http2,
+            boolean brotli, int[] requestPriorities, int callbackThreads) {
+        this.name = name;
+        this.httpCacheMode = httpCacheMode;
+        this.httpCacheSizeBytes = httpCacheSizeBytes;
+        this.http2 = http2;
+        this.brotli = brotli;
+        this.requestPriorities = requestPriorities;
+        this.callbackThreads = callbackThreads;
+    }
+
+    static EngineConfig defaults() {
+        return new EngineConfig("default", CronetEngine.Builder.HTTP_CACHE_DISK_NO_HTTP,
+                100 * 1024, true, true, new int[] {UrlRequest.Builder.REQUEST_PRIORITY_IDLE}, 4);
+    }
+
+    EngineConfig withHttpCache(String name, int mode, long sizeBytes) {
+        return new EngineConfig(name, mode, sizeBytes, http2, brotli, requestPriorities,
+                callbackThreads);
+    }
+
+    EngineConfig withHttp2(String name, boolean enabled) {
+        return new EngineConfig(name, httpCacheMode, httpCacheSizeBytes, enabled, brotli,
+                requestPriorities, callbackThreads);
+    }
+
+    EngineConfig withBrotli(String name, boolean enabled) {
+        return new EngineConfig(name, httpCacheMode, httpCacheSizeBytes, http2, enabled,
+                requestPriorities, callbackThreads);
+    }
+
+    EngineConfig withRequestPriorities(String name, int... priorities) {
+        return new EngineConfig(name, httpCacheMode, httpCacheSizeBytes, http2, brotli,
+                priorities, callbackThreads);
+    }
+
+    EngineConfig withCallbackThreads(String name, int threads) {
+        return new EngineConfig(name, httpCacheMode, httpCacheSizeBytes, http2, brotli,
+                requestPriorities, threads);
+    }
+
+    /**
+     * Builds an engine the same way the application does, with its own storage directory so that
+     * cells don't share a cache.
+     */
+    CronetEngine build(Context context, File storageDir) {
+        return new ExperimentalCronetEngine.Builder(context)
+                .setStoragePath(storageDir.getAbsolutePath())
+                .enableHttpCache(httpCacheMode, httpCacheSizeBytes)
+                .enableHttp2(http2)
+                // The local server doesn't speak QUIC, we keep it enabled to match the app.
+                .enableQuic(true)
+                .enableBrotli(brotli)
+                .setUserAgent("CronetSampleBenchmark")
+                .enableNetworkQualityEstimator(true)
+                .build();
+    }
+
+    JSONObject toJson() throws JSONException {
+        return new JSONObject()
+                .put("name", name)
+                .put("http_cache_mode", cacheModeName(httpCacheMode))
+                .put("http_cache_size_bytes", httpCacheSizeBytes)
+                .put("http2", http2)
+                .put("brotli", brotli)
+                .put("request_priorities", priorityNames(requestPriorities))
+                .put("callback_threads", callbackThreads);
+    }
+
+    static String priorityName(int priority) {
+        switch (priority) {
+            case UrlRequest.Builder.REQUEST_PRIORITY_IDLE:
+                return "idle";
+            case UrlRequest.Builder.REQUEST_PRIORITY_LOWEST:
+                return "lowest";
+            case UrlRequest.Builder.REQUEST_PRIORITY_LOW:
+                return "low";
+            case UrlRequest.Builder.REQUEST_PRIORITY_MEDIUM:
+                return "medium";
+            case UrlRequest.Builder.REQUEST_PRIORITY_HIGHEST:
+                return "highest";
+            default:
+                return Integer.toString(priority);
+        }
+    }
+
+    private static JSONArray priorityNames(int[] priorities) {
+        JSONArray names = new JSONArray();
+        for (int priority : priorities) {
+            names.put(priorityName(priority));
+        }
+        return names;
+    }
+
+    private static String cacheModeName(int mode) {
+        switch (mode) {
+            case CronetEngine.Builder.HTTP_CACHE_DISABLED:
+                return "disabled";
+            case CronetEngine.Builder.HTTP_CACHE_IN_MEMORY:
+                return "in_memory";
+            case CronetEngine.Builder.HTTP_CACHE_DISK_NO_HTTP:
+                return "disk_no_http";
+            case CronetEngine.Builder.HTTP_CACHE_DISK:
+                return "disk";
+            default:
+                return Integer.toString(mode);
+        }
+    }
+}
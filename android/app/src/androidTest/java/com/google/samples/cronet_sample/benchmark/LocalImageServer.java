@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample.benchmark;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+import okio.Buffer;
+
+/**
+ * Stand-in for the image server, running on localhost inside the test process.
+ *
+ * <p>It speaks HTTP/2 and HTTP/1.1 over TLS, Cronet doesn't negotiate HTTP/2 without it. The
+ * certificate in {@code assets/benchmark_server.pem} is trusted by debug builds through the
+ * network security config. Every {@code /images/<n>} path returns the same body, cacheable for
+ * an hour, after the configured latency. {@code /manifest} serves a {@value #CATALOG_SIZE}
+ * image catalog in the paged format {@code ImageRepository} reads.
+ *
+ * <p>The configured bandwidth is that of a single link shared by all responses, like the
+ * bottleneck of a real connection: concurrent responses queue for it in the order they are
+ * dispatched rather than each getting the full bandwidth.
+ */
+final class LocalImageServer implements Closeable {
+
+    static final int CATALOG_SIZE = 100_000;
+
+    private static final String CERTIFICATE_ASSET = "benchmark_server.pem";
+    private static final int DEFAULT_MANIFEST_PAGE_SIZE = 500;
+
+    // The bodies are drawn from a small alphabet so that they compress roughly 2:1, which keeps
+    // gzip meaningful. Real JPEGs barely compress, use compression = false to model them.
+    private static final byte[] BODY_ALPHABET =
+            "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final MockWebServer server = new MockWebServer();
+    private final ServerConfig config;
+    private final byte[] identityBody;
+    private final byte[] gzipBody;
+    private final byte[] brotliBody;
+
+    // System.nanoTime() at which the link is done sending the bodies dispatched so far.
+    private long linkBusyUntilNanos;
+
+    LocalImageServer(Context testContext, ServerConfig config) throws IOException {
+        this.config = config;
+        // Responses are encoded up front so that the server's own work doesn't skew the results.
+        identityBody = createBody(config.bodySizeBytes);
+        gzipBody = gzip(identityBody);
+        brotliBody = BrotliStoredEncoder.encode(identityBody);
+
+        HeldCertificate certificate = HeldCertificate.decode(readAsset(testContext));
+        server.useHttps(new HandshakeCertificates.Builder()
+                .heldCertificate(certificate)
+                .build()
+                .sslSocketFactory(), false);
+        server.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return respond(request);
+            }
+        });
+        server.start();
+    }
+
+    String imageUrl(int index) {
+        // The certificate is issued for "localhost", make sure we don't end up with an address.
+        return server.url("/images/" + index).newBuilder()
+                .host("localhost")
+                .build()
+                .toString();
+    }
+
+    String manifestUrl() {
+        return server.url("/manifest").newBuilder()
+                .host("localhost")
+                .build()
+                .toString();
+    }
+
+    /**
+     * Number of requests that reached the server so far, the ones served from Cronet's cache
+     * don't count.
+     */
+    int requestCount() {
+        return server.getRequestCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+
+    private MockResponse respond(RecordedRequest request) {
+        if (request.getPath() != null && request.getPath().startsWith("/manifest")) {
+            return respondWithManifestPage(request);
+        }
+        if (request.getPath() == null || !request.getPath().startsWith("/images/")) {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        MockResponse response = new MockResponse()
+                .setHeader("Content-Type", "application/octet-stream")
+                .setHeader("Cache-Control", "public, max-age=3600");
+
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        byte[] body = identityBody;
+        if (config.compression && acceptEncoding != null) {
+            if (acceptEncoding.contains("br")) {
+                body = brotliBody;
+                response.setHeader("Content-Encoding", "br");
+            } else if (acceptEncoding.contains("gzip")) {
+                body = gzipBody;
+                response.setHeader("Content-Encoding", "gzip");
+            }
+        }
+        response.setBody(new Buffer().write(body));
+        return emulateNetwork(response, body.length);
+    }
+
+    private MockResponse respondWithManifestPage(RecordedRequest request) {
+        String cursor = request.getRequestUrl().queryParameter("cursor");
+        String limit = request.getRequestUrl().queryParameter("limit");
+        int start = cursor == null ? 0 : Integer.parseInt(cursor);
+        int end = Math.min(CATALOG_SIZE,
+                start + (limit == null ? DEFAULT_MANIFEST_PAGE_SIZE : Integer.parseInt(limit)));
+
+        // Pages are small and cheap to write compared to the transfer, unlike images they are
+        // built on demand.
+        StringBuilder json = new StringBuilder("{\"images\":[");
+        for (int i = start; i < end; i++) {
+            if (i != start) {
+                json.append(',');
+            }
+            json.append('"').append(imageUrl(i)).append('"');
+        }
+        json.append(']');
+        if (end < CATALOG_SIZE) {
+            json.append(",\"next_cursor\":\"").append(end).append('"');
+        }
+        byte[] body = json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+
+        MockResponse response = new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setHeader("Cache-Control", "no-store")
+                .setBody(new Buffer().write(body));
+        return emulateNetwork(response, body.length);
+    }
+
+    private MockResponse emulateNetwork(MockResponse response, long bodyBytes) {
+        response.setHeadersDelay(config.latencyMs, TimeUnit.MILLISECONDS);
+        if (config.bytesPerSecond > 0) {
+            // Wait for the link to be free, then send at its full bandwidth, in 10 ms slices to
+            // keep it smooth.
+            response.setBodyDelay(reserveLink(bodyBytes), TimeUnit.NANOSECONDS);
+            response.throttleBody(Math.max(1, config.bytesPerSecond / 100), 10,
+                    TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    /**
+     * Reserves the link for sending {@code bodyBytes} once the headers are out, and returns how
+     * long the body has to wait for its turn.
+     */
+    private synchronized long reserveLink(long bodyBytes) {
+        long firstByteNanos =
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.latencyMs);
+        long startNanos = Math.max(firstByteNanos, linkBusyUntilNanos);
+        linkBusyUntilNanos =
+                startNanos + TimeUnit.SECONDS.toNanos(bodyBytes) / config.bytesPerSecond;
+        return startNanos - firstByteNanos;
+    }
+
+    private static byte[] createBody(int size) {
+        // Seeded, so that every run serves exactly the same bytes.
+        Random random = new Random(size);
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; i++) {
+            body[i] = BODY_ALPHABET[random.nextInt(BODY_ALPHABET.length)];
+        }
+        return body;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static String readAsset(Context testContext) throws IOException {
+        try (InputStream in = testContext.getAssets().open(CERTIFICATE_ASSET)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.samples.cronet_sample.data.ImageIndex;
+import com.google.samples.cronet_sample.data.ImageRepository;
+
+import org.chromium.net.CronetEngine;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pages through the whole {@value LocalImageServer#CATALOG_SIZE} image manifest served by a
+ * {@link LocalImageServer} with {@link ImageRepository}, as the app does while the user scrolls,
+ * and writes how long each page takes to be fetched and parsed as JSON.
+ *
+ * <p>Skipped unless enabled, run it like {@link CronetBenchmarkTest}, replacing the class name,
+ * and fetch the report with
+ * {@code adb pull /sdcard/Android/data/com.google.samples.cronet_sample/files/cronet-manifest-benchmark.json}.
+ * Parsing and paging correctness are covered by the {@code ImageRepositoryTest} unit tests, this
+ * measures them against a real Cronet engine and network conditions.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ManifestPagingBenchmarkTest {
+
+    private static final String REPORT_FILE = "cronet-manifest-benchmark.json";
+    private static final long TIMEOUT_SECONDS = 600;
+
+    // Body size and compression only apply to images.
+    private static final List<ServerConfig> SERVERS = Arrays.asList(
+            new ServerConfig("local", 0, 0, 32 * 1024, true),
+            new ServerConfig("slow", 150, 200 * 1024, 32 * 1024, true));
+
+    @Before
+    public void setUp() {
+        CronetBenchmarkTest.assumeBenchmarksEnabled();
+    }
+
+    @Test
+    public void manifestPaging() throws Exception {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        Context targetContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        EngineConfig engineConfig = EngineConfig.defaults();
+
+        JSONArray results = new JSONArray();
+        for (ServerConfig serverConfig : SERVERS) {
+            try (LocalImageServer server = new LocalImageServer(testContext, serverConfig)) {
+                File storageDir = new File(targetContext.getCacheDir(),
+                        "benchmark/" + serverConfig.name + "/manifest");
+                CronetBenchmarkTest.deleteRecursively(storageDir);
+                assertTrue(storageDir.mkdirs());
+
+                CronetEngine engine = engineConfig.build(targetContext, storageDir);
+                try {
+                    JSONObject json = runManifestPaging(
+                            new ImageRepository(engine, server.manifestUrl()))
+                            .put("server", serverConfig.toJson())
+                            .put("engine", engineConfig.toJson())
+                            .put("server_requests", server.requestCount());
+                    Log.i(CronetBenchmarkTest.TAG, json.toString());
+                    results.put(json);
+                } finally {
+                    engine.shutdown();
+                    CronetBenchmarkTest.deleteRecursively(storageDir);
+                }
+            }
+        }
+
+        File report = CronetBenchmarkTest.writeReport(targetContext, REPORT_FILE,
+                new JSONObject()
+                        .put("device", Build.MANUFACTURER + " " + Build.MODEL)
+                        .put("sdk_int", Build.VERSION.SDK_INT)
+                        .put("results", results));
+        Log.i(CronetBenchmarkTest.TAG, "Report written to " + report);
+    }
+
+    private static JSONObject runManifestPaging(ImageRepository repository)
+            throws InterruptedException, JSONException {
+        List<Long> pageLatenciesNanos = new ArrayList<>();
+        boolean[] failed = new boolean[1];
+        CountDownLatch done = new CountDownLatch(1);
+
+        long javaBytesBefore = CronetBenchmarkTest.javaBytesAllocated();
+        long startNanos = System.nanoTime();
+        long[] pageStartNanos = {startNanos};
+        // Invoked on the repository's loading thread, which also runs the next page.
+        ImageIndex images = repository.reload(new ImageRepository.Listener() {
+            @Override
+            public void onImagesLoaded(ImageIndex images, int positionStart, int count,
+                    boolean hasMore) {
+                long now = System.nanoTime();
+                pageLatenciesNanos.add(now - pageStartNanos[0]);
+                if (count == 0) {
+                    failed[0] = true;
+                }
+                if (!hasMore || failed[0]) {
+                    done.countDown();
+                    return;
+                }
+                pageStartNanos[0] = now;
+                repository.loadNextPage(this);
+            }
+        });
+        if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new AssertionError("Manifest didn't load in " + TIMEOUT_SECONDS + "s");
+        }
+        long wallTimeNanos = System.nanoTime() - startNanos;
+        long javaBytes = CronetBenchmarkTest.javaBytesAllocated() - javaBytesBefore;
+
+        // A failed first page falls back to the built-in images, which would be just as wrong.
+        assertFalse("Manifest page failed, see logcat for details", failed[0]);
+        assertEquals(LocalImageServer.CATALOG_SIZE, images.size());
+
+        return new JSONObject()
+                .put("pages", pageLatenciesNanos.size())
+                .put("images", images.size())
+                .put("wall_time_ms", wallTimeNanos / 1e6)
+                .put("images_per_second", images.size() / (wallTimeNanos / 1e9))
+                .put("page_latency_ms", BenchmarkResult.latencyJson(pageLatenciesNanos))
+                .put("allocations", new JSONObject()
+                        .put("java_bytes", javaBytes)
+                        .put("java_bytes_per_image", javaBytes / images.size()))
+                .put("index_estimated_size_bytes", images.estimatedSizeBytes());
+    }
+}
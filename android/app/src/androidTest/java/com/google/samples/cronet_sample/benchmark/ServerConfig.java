@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample.benchmark;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Network conditions and responses emulated by {@link LocalImageServer}.
+ */
+final class ServerConfig {
+
+    final String name;
+    // Delay before the response headers are sent, i.e. the time to first byte.
+    final long latencyMs;
+    // Bandwidth of the link shared by all response bodies, 0 for unlimited.
+    final long bytesPerSecond;
+    final int bodySizeBytes;
+    // Whether bodies are encoded with Brotli or gzip when the client advertises support.
+    final boolean compression;
+
+    ServerConfig(String name, long latencyMs, long bytesPerSecond, int bodySizeBytes,
+            boolean compression) {
+        this.name = name;
+        this.latencyMs = latencyMs;
+        this.bytesPerSecond = bytesPerSecond;
+        this.bodySizeBytes = bodySizeBytes;
+        this.compression = compression;
+    }
+
+    JSONObject toJson() throws JSONException {
+        return new JSONObject()
+                .put("name", name)
+                .put("latency_ms", latencyMs)
+                .put("bytes_per_second", bytesPerSecond)
+                .put("body_size_bytes", bodySizeBytes)
+                .put("compression", compression);
+    }
+}
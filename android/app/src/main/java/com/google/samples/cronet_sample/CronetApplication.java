@@ -8,15 +8,18 @@ import com.google.android.gms.common.GooglePlayServicesNotAvailableException;
 import com.google.android.gms.common.GooglePlayServicesRepairableException;
 import com.google.android.gms.net.CronetProviderInstaller;
 import com.google.android.gms.tasks.Task;
+import com.google.samples.cronet_sample.data.ImageRepository;
 
 import org.chromium.net.CronetEngine;
 import org.chromium.net.CronetProvider;
+import org.chromium.net.ExperimentalCronetEngine;
+import org.chromium.net.NetworkQualityRttListener;
+import org.chromium.net.NetworkQualityThroughputListener;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class CronetApplication extends Application {
@@ -24,22 +27,30 @@ public class CronetApplication extends Application {
     // We recommend that each application uses a single, global CronetEngine. This allows Cronet
     // to maximize performance. This can either be achieved using a global static . In this example,
     // we initialize it in an Application class to manage lifecycle of the network log.
-    private CronetEngine cronetEngine;
+    private ExperimentalCronetEngine cronetEngine;
 
     // Executor that will invoke asynchronous Cronet callbacks. Like with the Cronet engine, we
     // recommend that it's managed centrally.
     private ExecutorService cronetCallbackExecutorService;
 
-    // We use this variable to demonstrate how Cronet's caching behaves. Each subsequent attempt to
-    // load the images fetches one more, up to the number of images specified in ImageRepository.
-    // Don't do this in your production application, it's a dirty hack :).
-    public final AtomicInteger imagesToLoadCeiling = new AtomicInteger();
+    // Decides which image variants to request based on the network quality Cronet observes.
+    private final ImageQualitySelector imageQualitySelector = new ImageQualitySelector();
+
+    // URL of the paged JSON manifest listing the images, see ImageRepository for its format.
+    // The sample doesn't host one, so the app shows a few built-in images until this points at
+    // your own catalog.
+    private static final String MANIFEST_URL = null;
+
+    // The image catalog, loaded page by page through the Cronet engine.
+    private ImageRepository imageRepository;
 
     @Override
     public void onCreate() {
         super.onCreate();
         cronetEngine = createDefaultCronetEngine(this);
         cronetCallbackExecutorService = Executors.newFixedThreadPool(4);
+        imageRepository = new ImageRepository(cronetEngine, MANIFEST_URL);
+        listenToNetworkQuality();
     }
 
     public CronetEngine getCronetEngine() {
@@ -50,7 +61,44 @@ public class CronetApplication extends Application {
         return cronetCallbackExecutorService;
     }
 
-    private static CronetEngine createDefaultCronetEngine(Context context) {
+    public ImageRepository getImageRepository() {
+        return imageRepository;
+    }
+
+    ImageQualitySelector getImageQualitySelector() {
+        return imageQualitySelector;
+    }
+
+    private void listenToNetworkQuality() {
+        // Cronet's network quality estimator reports raw RTT and throughput observations for
+        // every request going through the engine, several per request and from different layers
+        // (TCP, QUIC, HTTP, cached estimates). Rather than averaging those ourselves, we use them
+        // as a signal that the engine's own estimates may have changed and read these, they
+        // combine the observations the way Chromium does for its effective connection types.
+        cronetEngine.addRttListener(
+                new NetworkQualityRttListener(cronetCallbackExecutorService) {
+                    @Override
+                    public void onRttObservation(int rttMs, long whenMs, int source) {
+                        updateNetworkQualityEstimates();
+                    }
+                });
+        cronetEngine.addThroughputListener(
+                new NetworkQualityThroughputListener(cronetCallbackExecutorService) {
+                    @Override
+                    public void onThroughputObservation(
+                            int throughputKbps, long whenMs, int source) {
+                        updateNetworkQualityEstimates();
+                    }
+                });
+    }
+
+    private void updateNetworkQualityEstimates() {
+        imageQualitySelector.onEstimates(cronetEngine.getHttpRttMs(),
+                cronetEngine.getDownstreamThroughputKbps(),
+                cronetEngine.getEffectiveConnectionType());
+    }
+
+    private static ExperimentalCronetEngine createDefaultCronetEngine(Context context) {
         // Cronet makes use of modern protocols like HTTP/2 and QUIC by default. However, to make
         // the most of servers that support QUIC, one must either specify that a particular domain
         // supports QUIC explicitly using QUIC hints, or enable the on-disk cache.
@@ -63,7 +111,7 @@ public class CronetApplication extends Application {
         //
         // We recommend that QUIC hints are provided explicitly when working with servers known
         // to support QUIC.
-        return new CronetEngine.Builder(context)
+        return new ExperimentalCronetEngine.Builder(context)
                 // The storage path must be set first when using a disk cache.
                 .setStoragePath(context.getFilesDir().getAbsolutePath())
 
@@ -90,6 +138,10 @@ public class CronetApplication extends Application {
                 // One can provide a custom user agent if desired.
                 .setUserAgent("CronetSampleApp")
 
+                // The network quality estimator is disabled by default. It's only exposed by the
+                // experimental API, which is why we use ExperimentalCronetEngine.Builder above.
+                .enableNetworkQualityEstimator(true)
+
                 // As noted above, QUIC hints speed up initial requests to a domain. Multiple hints
                 // can be added. We don't enable them in this demo to demonstrate how QUIC
                 // is being used if no hints are provided.
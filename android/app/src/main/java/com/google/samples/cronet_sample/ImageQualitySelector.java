@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.cronet_sample;
+
+import com.google.samples.cronet_sample.data.ImageRepository;
+
+import org.chromium.net.ExperimentalCronetEngine;
+
+/**
+ * Picks which {@link ImageRepository.Quality} to request based on the network quality estimates
+ * of Cronet's engine.
+ *
+ * <p>Estimates are delivered from Cronet's listener executor while the selection is made
+ * from the UI thread, so all methods are thread safe.
+ */
+class ImageQualitySelector {
+
+    // Thresholds loosely follow the HTTP RTT and throughput cutoffs Chromium uses for its
+    // effective connection types.
+    static final int LOW_QUALITY_MAX_THROUGHPUT_KBPS = 400;
+    static final int LOW_QUALITY_MIN_RTT_MS = 1000;
+    static final int MEDIUM_QUALITY_MAX_THROUGHPUT_KBPS = 1600;
+    static final int MEDIUM_QUALITY_MIN_RTT_MS = 300;
+
+    // Number of consecutive estimates that must call for another quality before we switch to it.
+    // A single slow or fast estimate, e.g. right after one unusually slow request, keeps the
+    // grid's quality, and the quality doesn't flip back and forth near a threshold.
+    static final int ESTIMATES_TO_SWITCH = 3;
+
+    // Same value as CronetEngine's CONNECTION_METRIC_UNKNOWN.
+    private static final int NO_ESTIMATE = -1;
+
+    // Nothing observed yet (e.g. the very first requests), don't bet on either extreme.
+    private ImageRepository.Quality selectedQuality = ImageRepository.Quality.MEDIUM;
+    private boolean hasEstimate;
+    private ImageRepository.Quality pendingQuality;
+    private int pendingEstimates;
+
+    /**
+     * Takes the engine's current estimates, any of which may be unknown.
+     */
+    synchronized void onEstimates(int httpRttMs, int downstreamThroughputKbps,
+            int effectiveConnectionType) {
+        ImageRepository.Quality quality =
+                qualityFor(httpRttMs, downstreamThroughputKbps, effectiveConnectionType);
+        if (quality == null) {
+            return;
+        }
+        if (!hasEstimate) {
+            // There's nothing to be stable against yet, leave the default right away.
+            hasEstimate = true;
+            selectedQuality = quality;
+            return;
+        }
+        if (quality == selectedQuality) {
+            pendingQuality = null;
+            pendingEstimates = 0;
+            return;
+        }
+        if (quality != pendingQuality) {
+            pendingQuality = quality;
+            pendingEstimates = 0;
+        }
+        if (++pendingEstimates >= ESTIMATES_TO_SWITCH) {
+            selectedQuality = quality;
+            pendingQuality = null;
+            pendingEstimates = 0;
+        }
+    }
+
+    synchronized ImageRepository.Quality selectQuality() {
+        return selectedQuality;
+    }
+
+    // Quality the estimates call for, null when they don't tell anything.
+    private static ImageRepository.Quality qualityFor(int httpRttMs,
+            int downstreamThroughputKbps, int effectiveConnectionType) {
+        // The effective connection type is Cronet's own summary of the link, trust it when it
+        // says the network is slow.
+        switch (effectiveConnectionType) {
+            case ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_OFFLINE:
+            case ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_SLOW_2G:
+            case ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_2G:
+                return ImageRepository.Quality.LOW;
+            default:
+                break;
+        }
+
+        if (httpRttMs == NO_ESTIMATE && downstreamThroughputKbps == NO_ESTIMATE) {
+            return effectiveConnectionType == ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_3G
+                    ? ImageRepository.Quality.MEDIUM : null;
+        }
+        if (isAbove(httpRttMs, LOW_QUALITY_MIN_RTT_MS)
+                || isBelow(downstreamThroughputKbps, LOW_QUALITY_MAX_THROUGHPUT_KBPS)) {
+            return ImageRepository.Quality.LOW;
+        }
+        if (effectiveConnectionType == ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_3G
+                || isAbove(httpRttMs, MEDIUM_QUALITY_MIN_RTT_MS)
+                || isBelow(downstreamThroughputKbps, MEDIUM_QUALITY_MAX_THROUGHPUT_KBPS)) {
+            return ImageRepository.Quality.MEDIUM;
+        }
+        return ImageRepository.Quality.HIGH;
+    }
+
+    private static boolean isAbove(int estimate, int threshold) {
+        return estimate != NO_ESTIMATE && estimate > threshold;
+    }
+
+    private static boolean isBelow(int estimate, int threshold) {
+        return estimate != NO_ESTIMATE && estimate < threshold;
+    }
+}
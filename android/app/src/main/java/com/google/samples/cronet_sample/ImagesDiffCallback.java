@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.cronet_sample;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.google.samples.cronet_sample.data.ImageIndex;
+
+/**
+ * Compares the images shown before a refresh with the ones loaded by it. Images are identified
+ * by their URL, so an image that is still in the catalog keeps its cell and the bitmap already
+ * bound to it.
+ *
+ * <p>Only the first {@code size} entries of each index are compared, the indices may keep
+ * growing while the diff is being calculated.
+ */
+class ImagesDiffCallback extends DiffUtil.Callback {
+
+    private final ImageIndex oldImages;
+    private final int oldSize;
+    private final ImageIndex newImages;
+    private final int newSize;
+
+    ImagesDiffCallback(ImageIndex oldImages, int oldSize, ImageIndex newImages, int newSize) {
+        this.oldImages = oldImages;
+        this.oldSize = oldSize;
+        this.newImages = newImages;
+        this.newSize = newSize;
+    }
+
+    @Override
+    public int getOldListSize() {
+        return oldSize;
+    }
+
+    @Override
+    public int getNewListSize() {
+        return newSize;
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        return oldImages.get(oldItemPosition).equals(newImages.get(newItemPosition));
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        // The URL is all we know about an image, same URL means same content.
+        return true;
+    }
+}
@@ -16,19 +16,25 @@
 package com.google.samples.cronet_sample;
 
 import android.os.Bundle;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.DefaultItemAnimator;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
+import com.google.samples.cronet_sample.data.ImageIndex;
 import com.google.samples.cronet_sample.data.ImageRepository;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.chromium.net.CronetEngine;
@@ -36,9 +42,27 @@ import org.chromium.net.CronetEngine;
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
+
+    // How close to the end of the loaded images the user can scroll before we request the next
+    // page of the catalog.
+    private static final int PREFETCH_DISTANCE = 20;
+
     private SwipeRefreshLayout swipeRefreshLayout;
+    private RecyclerView cronetView;
+    private ViewAdapter viewAdapter;
     private final AtomicReference<CronetMetrics> metrics = new AtomicReference<>();
 
+    // Images loaded by an ongoing refresh, until they replace the ones shown by the adapter.
+    private ImageIndex refreshingImages;
+    // Diffing a large catalog takes a while, so it's kept off the UI thread.
+    private final ExecutorService diffExecutorService = Executors.newSingleThreadExecutor();
+    // Number of image requests issued since the last refresh, scrolling included. Only accessed
+    // on the UI thread, like the next one.
+    private int requestsSinceRefresh;
+    // Image requests issued by binds caused by the last dispatched diff, -1 once its layout pass
+    // is over.
+    private int requestsCausedByDiff = -1;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -57,29 +81,150 @@ public class MainActivity extends AppCompatActivity {
         setUpToolbar();
         swipeRefreshLayout = findViewById(R.id.images_activity_layout);
         swipeRefreshLayout.setOnRefreshListener(this::loadItems);
+        setUpImagesView();
         loadItems();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        diffExecutorService.shutdown();
         stopNetLog();
     }
 
+    private void setUpImagesView() {
+        cronetView = findViewById(R.id.images_view);
+        cronetView.setLayoutManager(new GridLayoutManager(this, 2));
+        cronetView.setItemAnimator(new DefaultItemAnimator());
+        cronetView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Also invoked after a layout pass changes the visible range, so this keeps
+                // loading pages until the screen is filled.
+                GridLayoutManager layoutManager =
+                        (GridLayoutManager) recyclerView.getLayoutManager();
+                // While refreshing, pages belong to the new images and must wait for the diff.
+                if (viewAdapter != null && refreshingImages == null && layoutManager != null
+                        && layoutManager.findLastVisibleItemPosition() + PREFETCH_DISTANCE
+                                >= viewAdapter.getItemCount()) {
+                    getImageRepository().loadNextPage(MainActivity.this::onImagesLoaded);
+                }
+            }
+        });
+    }
+
     private void loadItems() {
         metrics.set(new CronetMetrics(0, 0));
-        getCronetApplication().imagesToLoadCeiling.incrementAndGet();
+        updateRequestCount(0);
 
-        RecyclerView cronetView = findViewById(R.id.images_view);
+        ImageIndex images = getImageRepository().reload(this::onImagesLoaded);
+        if (viewAdapter == null) {
+            viewAdapter = new ViewAdapter(this, images);
+            cronetView.setAdapter(viewAdapter);
+        } else {
+            // Keep the adapter, and with it every image that's already bound, until we know what
+            // changed.
+            refreshingImages = images;
+        }
+    }
 
-        GridLayoutManager gridLayoutManager =
-                new GridLayoutManager(this, 2);
+    /**
+     * Invoked on the manifest loading thread once a page of the catalog has been loaded.
+     */
+    private void onImagesLoaded(ImageIndex images, int positionStart, int count,
+            boolean hasMore) {
+        runOnUiThread(() -> {
+            if (isDestroyed()) {
+                return;
+            }
+            if (images == viewAdapter.getImages()) {
+                // Pages still arriving for the images being replaced would invalidate the diff.
+                if (refreshingImages == null) {
+                    if (count > 0) {
+                        viewAdapter.onImagesAppended(positionStart, count);
+                    }
+                    // Stop the spinner even when the first page brought no images, swiping again
+                    // reloads.
+                    if (positionStart == 0) {
+                        onItemsLoadComplete();
+                    }
+                }
+            } else if (images == refreshingImages) {
+                int newCount = positionStart + count;
+                if (newCount < viewAdapter.getItemCount() && hasMore && count > 0) {
+                    // Diffing only the first pages would remove every image the user scrolled
+                    // past them and make the grid jump, so catch up with what is shown first. A
+                    // page that failed to load ends the catch up rather than retrying in a loop.
+                    getImageRepository().loadNextPage(this::onImagesLoaded);
+                } else {
+                    onRefreshedImagesLoaded(images, newCount);
+                }
+            }
+            // Anything else was loaded for images that have since been replaced.
+        });
+    }
 
-        cronetView.setLayoutManager(gridLayoutManager);
-        cronetView.setAdapter(new ViewAdapter(this));
-        cronetView.setItemAnimator(new DefaultItemAnimator());
-        onItemsLoadComplete();
+    private void onRefreshedImagesLoaded(ImageIndex newImages, int newCount) {
+        ImageIndex oldImages = viewAdapter.getImages();
+        int oldCount = viewAdapter.getItemCount();
+        diffExecutorService.execute(() -> {
+            // Moves are rare in a catalog and detecting them is quadratic, so we skip them.
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                    new ImagesDiffCallback(oldImages, oldCount, newImages, newCount), false);
+            runOnUiThread(() -> {
+                if (isDestroyed() || newImages != refreshingImages) {
+                    // Superseded by another refresh.
+                    return;
+                }
+                refreshingImages = null;
+                viewAdapter.setImages(newImages, newCount);
+                // Only inserted and removed positions are bound again, unchanged images keep
+                // their cells and bitmaps. The binds happen during the next layout pass, count
+                // the requests they issue until then.
+                requestsCausedByDiff = 0;
+                diff.dispatchUpdatesTo(viewAdapter);
+                cronetView.getViewTreeObserver().addOnGlobalLayoutListener(
+                        new ViewTreeObserver.OnGlobalLayoutListener() {
+                            @Override
+                            public void onGlobalLayout() {
+                                cronetView.getViewTreeObserver()
+                                        .removeOnGlobalLayoutListener(this);
+                                logDiff(diff, oldCount, newCount, requestsCausedByDiff);
+                                requestsCausedByDiff = -1;
+                            }
+                        });
+                // Make sure there is a layout pass even if nothing changed.
+                cronetView.requestLayout();
+                onItemsLoadComplete();
+            });
+        });
+    }
+
+    private static void logDiff(DiffUtil.DiffResult diff, int oldCount, int newCount,
+            int requests) {
+        int[] insertedAndRemoved = new int[2];
+        diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                insertedAndRemoved[0] += count;
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                insertedAndRemoved[1] += count;
+            }
 
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+            }
+        });
+        android.util.Log.i(TAG, "Refreshed from " + oldCount + " to " + newCount + " images: "
+                + insertedAndRemoved[0] + " inserted, " + insertedAndRemoved[1] + " removed, "
+                + requests + " image requests to bind the changes.");
     }
 
     private void onItemsLoadComplete() {
@@ -108,24 +253,42 @@ public class MainActivity extends AppCompatActivity {
                         left.numberOfLoadedImages + right.numberOfLoadedImages));
 
 
-        if (newMetrics.numberOfLoadedImages == Math.min(
-                getCronetApplication().imagesToLoadCeiling.get(),
-                ImageRepository.numberOfImages())) {
-            long averageLatencyNanos =
-                    newMetrics.totalLatencyNanos / newMetrics.numberOfLoadedImages;
-            android.util.Log.i(TAG,
-                    "All Cronet Requests Complete, the average latency is " + averageLatencyNanos
-                            + " nanos.");
-            final TextView cronetTime = findViewById(R.id.cronet_time_label);
-            runOnUiThread(() -> cronetTime.setText(String.format(getResources()
-                    .getString(R.string.images_loaded), averageLatencyNanos)));
+        // Images keep loading as the user scrolls, so we report the average latency so far.
+        long averageLatencyNanos =
+                newMetrics.totalLatencyNanos / newMetrics.numberOfLoadedImages;
+        android.util.Log.i(TAG,
+                "Cronet Request Complete, the average latency is " + averageLatencyNanos
+                        + " nanos over " + newMetrics.numberOfLoadedImages + " images.");
+        final TextView cronetTime = findViewById(R.id.cronet_time_label);
+        runOnUiThread(() -> cronetTime.setText(String.format(getResources()
+                .getString(R.string.images_loaded), averageLatencyNanos)));
+    }
+
+    /**
+     * Counts the image requests, so the requests saved by keeping unchanged images across
+     * refreshes can be observed. Must be called on the UI thread.
+     */
+    public void onCronetImageRequestStarted() {
+        if (requestsCausedByDiff >= 0) {
+            requestsCausedByDiff++;
         }
+        updateRequestCount(requestsSinceRefresh + 1);
+    }
+
+    private void updateRequestCount(int count) {
+        requestsSinceRefresh = count;
+        ((TextView) findViewById(R.id.cronet_requests_label)).setText(String.format(
+                getResources().getString(R.string.image_requests), count));
     }
 
     CronetApplication getCronetApplication() {
         return ((CronetApplication) getApplication());
     }
 
+    private ImageRepository getImageRepository() {
+        return getCronetApplication().getImageRepository();
+    }
+
     private CronetEngine getCronetEngine() {
         return getCronetApplication().getCronetEngine();
     }
@@ -17,6 +17,7 @@ package com.google.samples.cronet_sample;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -24,6 +25,7 @@ import android.widget.ImageView;
 
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.samples.cronet_sample.data.ImageIndex;
 import com.google.samples.cronet_sample.data.ImageRepository;
 
 import org.chromium.net.UrlRequest;
@@ -31,10 +33,50 @@ import org.chromium.net.UrlResponseInfo;
 
 public class ViewAdapter extends RecyclerView.Adapter<ViewAdapter.ViewHolder> {
 
+    // Share of the app's heap the decoded bitmaps are allowed to take.
+    private static final int BITMAP_CACHE_FRACTION_OF_HEAP = 8;
+
     private final MainActivity mainActivity;
+    private ImageIndex images;
+
+    // Decoded images by URL and sample size. Cronet's HTTP cache saves the download of an image
+    // that scrolls back into view, this one also saves the request and the decoding.
+    private final LruCache<String, Bitmap> bitmapCache = new LruCache<String, Bitmap>(
+            (int) (Runtime.getRuntime().maxMemory() / BITMAP_CACHE_FRACTION_OF_HEAP)) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    };
+
+    // The index keeps growing on the manifest loading thread, the adapter only exposes the
+    // entries it has been notified about.
+    private int itemCount;
 
-    public ViewAdapter(MainActivity mainActivity) {
+    public ViewAdapter(MainActivity mainActivity, ImageIndex images) {
         this.mainActivity = mainActivity;
+        this.images = images;
+    }
+
+    ImageIndex getImages() {
+        return images;
+    }
+
+    /**
+     * Replaces the images after a refresh without notifying any change, the caller is expected to
+     * dispatch the difference between the two. Must be called on the UI thread.
+     */
+    void setImages(ImageIndex images, int itemCount) {
+        this.images = images;
+        this.itemCount = itemCount;
+    }
+
+    /**
+     * Exposes images appended to the index. Must be called on the UI thread.
+     */
+    void onImagesAppended(int positionStart, int count) {
+        itemCount = positionStart + count;
+        notifyItemRangeInserted(positionStart, count);
     }
 
     @Override
@@ -61,6 +103,23 @@ public class ViewAdapter extends RecyclerView.Adapter<ViewAdapter.ViewHolder> {
     public void onBindViewHolder(final ViewHolder holder, int position) {
         CronetApplication cronetApplication = mainActivity.getCronetApplication();
 
+        // Pick the variant that suits the network we're currently on. Cheaper variants load faster
+        // on congested links, sharper ones are used when the network can afford them.
+        ImageRepository.Variant variant = cronetApplication.getImageRepository().getImage(
+                images.get(position), cronetApplication.getImageQualitySelector().selectQuality());
+
+        // Views are recycled while scrolling, make sure a late response for the image the cell was
+        // bound to previously doesn't overwrite this one.
+        holder.getmImageViewCronet().setTag(variant.url);
+        String cacheKey = variant.sampleSize + ":" + variant.url;
+        Bitmap cachedBitmap = bitmapCache.get(cacheKey);
+        if (cachedBitmap != null) {
+            holder.getmImageViewCronet().setImageBitmap(cachedBitmap);
+            return;
+        }
+        // ... and that it doesn't show the previous image until this one is loaded.
+        holder.getmImageViewCronet().setImageDrawable(null);
+
         // UrlRequest and UrlRequest.Callback are the core of Cronet operations. UrlRequest is used
         // to issue requests, UrlRequest.Callback specifies how the application reacts to the server
         // responses.
@@ -77,11 +136,20 @@ public class ViewAdapter extends RecyclerView.Adapter<ViewAdapter.ViewHolder> {
                 mainActivity.onCronetImageLoadSuccessful(latencyNanos);
 
                 // Send image to layout
-                final Bitmap bimage = BitmapFactory.decodeByteArray(bodyBytes, 0, bodyBytes.length);
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = variant.sampleSize;
+                final Bitmap bimage = BitmapFactory.decodeByteArray(
+                        bodyBytes, 0, bodyBytes.length, options);
+                if (bimage != null) {
+                    bitmapCache.put(cacheKey, bimage);
+                }
                 mainActivity.runOnUiThread(() -> {
+                    if (!variant.url.equals(holder.getmImageViewCronet().getTag())) {
+                        return;
+                    }
+                    // The cell is sized by the column it's in rather than by the bitmap, so lower
+                    // quality tiers don't make the images smaller on screen.
                     holder.getmImageViewCronet().setImageBitmap(bimage);
-                    holder.getmImageViewCronet().getLayoutParams().height = bimage.getHeight();
-                    holder.getmImageViewCronet().getLayoutParams().width = bimage.getWidth();
                 });
             }
         };
@@ -89,7 +157,7 @@ public class ViewAdapter extends RecyclerView.Adapter<ViewAdapter.ViewHolder> {
         // The URL request builder allows you to customize the request.
         UrlRequest.Builder builder = cronetApplication.getCronetEngine()
                 .newUrlRequestBuilder(
-                        ImageRepository.getImage(position),
+                        variant.url,
                         callback,
                         cronetApplication.getCronetCallbackExecutorService())
                 // You can set arbitrary headers as needed
@@ -100,12 +168,11 @@ public class ViewAdapter extends RecyclerView.Adapter<ViewAdapter.ViewHolder> {
 
         // Start the request
         builder.build().start();
+        mainActivity.onCronetImageRequestStarted();
     }
 
     @Override
     public int getItemCount() {
-        return Math.min(
-                mainActivity.getCronetApplication().imagesToLoadCeiling.get(),
-                ImageRepository.numberOfImages());
+        return itemCount;
     }
 }
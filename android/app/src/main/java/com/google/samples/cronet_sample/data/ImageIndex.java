@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.cronet_sample.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only list of image URLs with a small per-entry footprint.
+ *
+ * <p>Catalogs typically share a handful of prefixes (scheme, host and directory), so each URL is
+ * split at its last '/'. Prefixes are interned in a table, file names are appended to a single
+ * byte array, and every entry is packed in one {@code long} holding the prefix id and the offset
+ * of its file name. This avoids keeping a String object (and its backing array) per entry.
+ *
+ * <p>Entries are appended from the manifest loading thread and read from the UI thread, so all
+ * methods are thread safe.
+ */
+public class ImageIndex {
+
+    private static final int PREFIX_ID_BITS = 16;
+    private static final int MAX_PREFIXES = 1 << PREFIX_ID_BITS;
+    private static final int OFFSET_BITS = Long.SIZE - PREFIX_ID_BITS;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_NAME_BYTES_CAPACITY = INITIAL_CAPACITY * 16;
+
+    // Prefix id 0 is the empty prefix, used when the prefix table is full.
+    private final List<String> prefixes = new ArrayList<>();
+    private final Map<String, Integer> prefixIds = new HashMap<>();
+
+    private long[] entries = new long[INITIAL_CAPACITY];
+    private byte[] nameBytes = new byte[INITIAL_NAME_BYTES_CAPACITY];
+    private int size;
+    private int nameBytesLength;
+
+    public ImageIndex() {
+        internPrefix("");
+    }
+
+    public synchronized void add(String url) {
+        int split = url.lastIndexOf('/') + 1;
+        int prefixId = internPrefix(url.substring(0, split));
+        byte[] name = (prefixId == 0 ? url : url.substring(split))
+                .getBytes(StandardCharsets.UTF_8);
+
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        if (nameBytesLength + name.length > nameBytes.length) {
+            nameBytes = Arrays.copyOf(nameBytes,
+                    Math.max(nameBytes.length * 2, nameBytesLength + name.length));
+        }
+        System.arraycopy(name, 0, nameBytes, nameBytesLength, name.length);
+        entries[size++] = ((long) prefixId << OFFSET_BITS) | nameBytesLength;
+        nameBytesLength += name.length;
+    }
+
+    public synchronized String get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+        }
+        long entry = entries[position];
+        int start = (int) (entry & OFFSET_MASK);
+        int end = position + 1 < size ? (int) (entries[position + 1] & OFFSET_MASK)
+                : nameBytesLength;
+        return prefixes.get((int) (entry >>> OFFSET_BITS))
+                + new String(nameBytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drops every entry at or after {@code newSize}. Used to discard a partially parsed page.
+     */
+    public synchronized void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IndexOutOfBoundsException("Size " + newSize + ", current size " + size);
+        }
+        if (newSize < size) {
+            nameBytesLength = (int) (entries[newSize] & OFFSET_MASK);
+            size = newSize;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes retained by the entry arrays and the prefix table. Object
+     * headers are ignored, this is meant to compare footprints rather than be exact.
+     */
+    public synchronized long estimatedSizeBytes() {
+        long prefixBytes = 0;
+        for (String prefix : prefixes) {
+            prefixBytes += prefix.length() * 2L;
+        }
+        return entries.length * (long) Long.BYTES + nameBytes.length + prefixBytes;
+    }
+
+    private int internPrefix(String prefix) {
+        Integer id = prefixIds.get(prefix);
+        if (id != null) {
+            return id;
+        }
+        if (prefixes.size() == MAX_PREFIXES) {
+            return 0;
+        }
+        prefixIds.put(prefix, prefixes.size());
+        prefixes.add(prefix);
+        return prefixes.size() - 1;
+    }
+}
@@ -15,9 +15,99 @@
  */
 package com.google.samples.cronet_sample.data;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.chromium.net.CronetEngine;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads the image catalog from a remote JSON manifest, one page at a time.
+ *
+ * <p>A manifest page looks like this:
+ *
+ * <pre>
+ * {
+ *   "images": ["https://example.com/images/sun.jpg", ...],
+ *   "variants": {"low": "w=320", "medium": "w=640"},
+ *   "next_cursor": "opaque-token"
+ * }
+ * </pre>
+ *
+ * The next page is requested with {@code ?cursor=<next_cursor>}, the last page omits
+ * {@code next_cursor}. The optional {@code variants} are the query parameters that make the
+ * server return a smaller rendition of an image for a given {@link Quality}, they apply to the
+ * whole catalog. Pages are parsed while they are being downloaded and appended straight to
+ * an {@link ImageIndex}, so the full catalog never has to be materialized as objects.
+ *
+ * <p>Without a manifest, the repository serves a small built-in set of images.
+ */
 public class ImageRepository {
 
-    private static String[] imageUrls= {
+    private static final String TAG = "ImageRepository";
+
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * Resolution / quality tiers an image can be served in, from the cheapest to the most
+     * expensive one.
+     */
+    public enum Quality {
+        LOW,
+        MEDIUM,
+        HIGH
+    }
+
+    /**
+     * A single rendition of an image.
+     *
+     * <p>{@code sampleSize} is passed to {@code BitmapFactory.Options.inSampleSize} when decoding.
+     * It's only above 1 when the server has no smaller rendition for the tier, in which case the
+     * original is downloaded and at least the decoding and the bitmap get cheaper.
+     */
+    public static class Variant {
+        public final String url;
+        public final int sampleSize;
+
+        Variant(String url, int sampleSize) {
+            this.url = url;
+            this.sampleSize = sampleSize;
+        }
+    }
+
+    /**
+     * Notified when a page of images has been appended to an index. Invoked on the manifest
+     * loading thread.
+     *
+     * <p>{@code count} is 0 when the page failed to load, the next {@link #loadNextPage} call
+     * retries it, or when the catalog is empty. {@code hasMore} tells whether there are pages
+     * left to load after this one.
+     */
+    public interface Listener {
+        void onImagesLoaded(ImageIndex images, int positionStart, int count, boolean hasMore);
+    }
+
+    /**
+     * Opens a page of the manifest, {@code cursor} is null for the first one.
+     */
+    interface PageSource {
+        Reader openPage(String cursor) throws IOException;
+    }
+
+    private static String[] fallbackImageUrls = {
             "https://storage.googleapis.com/cronet/sun.jpg",
             "https://storage.googleapis.com/cronet/flower.jpg",
             "https://storage.googleapis.com/cronet/chair.jpg",
@@ -26,11 +116,227 @@ public class ImageRepository {
             "https://storage.googleapis.com/cronet/walnut.jpg"
     };
 
-    public static int numberOfImages() {
-        return imageUrls.length;
+    // Decode downsampling applied for each Quality, indexed by ordinal, when the server has no
+    // rendition for it. MEDIUM is what we start with before any network estimate, so it decodes
+    // at full resolution.
+    private static final int[] decodeSampleSizes = {2, 1, 1};
+
+    // Null when no manifest is configured.
+    private final PageSource pageSource;
+    private final Executor manifestExecutor;
+    private final AtomicBoolean pageRequested = new AtomicBoolean();
+
+    private volatile ImageIndex images = new ImageIndex();
+    private volatile boolean hasMoreImages = true;
+    // Only accessed from manifestExecutor. The cursor is null both before the first page and
+    // after the last one.
+    private String nextCursor;
+    private boolean firstPageLoaded;
+    // Query parameters selecting each Quality's rendition, as announced by the manifest.
+    private volatile Map<Quality, String> variantQueries = new EnumMap<>(Quality.class);
+
+    /**
+     * Creates a repository loading the manifest at {@code manifestUrl} with the Cronet engine,
+     * or serving the built-in images if {@code manifestUrl} is null or empty.
+     */
+    public ImageRepository(CronetEngine cronetEngine, String manifestUrl) {
+        // Manifest pages are fetched with blocking I/O, so they get their own thread rather than
+        // occupying one of the Cronet callback threads. Being single threaded also means pages
+        // are appended in order.
+        this(manifestUrl == null || manifestUrl.isEmpty()
+                        ? null : new CronetPageSource(cronetEngine, manifestUrl),
+                Executors.newSingleThreadExecutor());
     }
 
-    public static String getImage(int position) {
-        return imageUrls[position];
+    ImageRepository(PageSource pageSource, Executor manifestExecutor) {
+        this.pageSource = pageSource;
+        this.manifestExecutor = manifestExecutor;
+    }
+
+    public Variant getImage(String url, Quality quality) {
+        String query = variantQueries.get(quality);
+        if (query != null) {
+            // The server scales the image down, that's where the bandwidth savings come from.
+            return new Variant(url + (url.indexOf('?') < 0 ? '?' : '&') + query, 1);
+        }
+        // The fallback images only exist in their original size.
+        return new Variant(url, decodeSampleSizes[quality.ordinal()]);
+    }
+
+    /**
+     * Starts loading the catalog from its first page into a new index, which is returned right
+     * away. Pages that were still queued for the previous index are dropped.
+     */
+    public ImageIndex reload(Listener listener) {
+        ImageIndex newImages = new ImageIndex();
+        images = newImages;
+        hasMoreImages = true;
+        pageRequested.set(true);
+        manifestExecutor.execute(() -> {
+            nextCursor = null;
+            firstPageLoaded = false;
+            loadPage(newImages, listener);
+        });
+        return newImages;
+    }
+
+    /**
+     * Requests the page following the ones already loaded. Calls made while a page is being
+     * loaded, or once the whole catalog is loaded, are ignored.
+     */
+    public void loadNextPage(Listener listener) {
+        if (!hasMoreImages || !pageRequested.compareAndSet(false, true)) {
+            return;
+        }
+        ImageIndex currentImages = images;
+        manifestExecutor.execute(() -> loadPage(currentImages, listener));
+    }
+
+    private void loadPage(ImageIndex target, Listener listener) {
+        int positionStart = target.size();
+        if (target != images || (firstPageLoaded && nextCursor == null)) {
+            // Either a reload replaced the index, or the catalog is already complete.
+            pageRequested.set(false);
+            return;
+        }
+        if (pageSource == null) {
+            // Nothing to fetch, don't go through a request that is bound to fail.
+            addFallbackImages(target);
+        } else {
+            try {
+                // Empty pages are skipped, so that listeners only see an empty page at the end of
+                // the catalog or on failure.
+                do {
+                    nextCursor = fetchPage(target, nextCursor);
+                    firstPageLoaded = true;
+                } while (target.size() == positionStart && nextCursor != null);
+                hasMoreImages = nextCursor != null;
+            } catch (IOException | RuntimeException e) {
+                android.util.Log.e(TAG, "Unable to load the image manifest page", e);
+                // Drop whatever was parsed before the failure so a retry doesn't add it twice.
+                target.truncate(positionStart);
+                // Past the first page, keep the cursor so the next call retries the same page.
+                if (!firstPageLoaded) {
+                    addFallbackImages(target);
+                }
+            }
+        }
+        // Accept the next request before notifying, the listener may ask for more right away.
+        pageRequested.set(false);
+        listener.onImagesLoaded(
+                target, positionStart, target.size() - positionStart, hasMoreImages);
+    }
+
+    private void addFallbackImages(ImageIndex target) {
+        for (String url : fallbackImageUrls) {
+            target.add(url);
+        }
+        variantQueries = new EnumMap<>(Quality.class);
+        nextCursor = null;
+        firstPageLoaded = true;
+        hasMoreImages = false;
+    }
+
+    private String fetchPage(ImageIndex target, String cursor) throws IOException {
+        try (JsonReader reader = new JsonReader(pageSource.openPage(cursor))) {
+            return readPage(reader, target);
+        }
+    }
+
+    private String readPage(JsonReader reader, ImageIndex target) throws IOException {
+        String nextCursor = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "images":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        target.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                case "variants":
+                    readVariants(reader);
+                    break;
+                case "next_cursor":
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        nextCursor = reader.nextString();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return nextCursor;
+    }
+
+    private void readVariants(JsonReader reader) throws IOException {
+        Map<Quality, String> queries = new EnumMap<>(Quality.class);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            Quality quality = null;
+            for (Quality candidate : Quality.values()) {
+                if (candidate.name().equalsIgnoreCase(name)) {
+                    quality = candidate;
+                }
+            }
+            if (quality == null) {
+                reader.skipValue();
+            } else {
+                queries.put(quality, reader.nextString());
+            }
+        }
+        reader.endObject();
+        variantQueries = queries;
+    }
+
+    /**
+     * Fetches manifest pages with Cronet's HttpURLConnection implementation.
+     */
+    private static class CronetPageSource implements PageSource {
+
+        private final CronetEngine cronetEngine;
+        private final String manifestUrl;
+
+        CronetPageSource(CronetEngine cronetEngine, String manifestUrl) {
+            this.cronetEngine = cronetEngine;
+            this.manifestUrl = manifestUrl;
+        }
+
+        @Override
+        public Reader openPage(String cursor) throws IOException {
+            String url = manifestUrl + (manifestUrl.indexOf('?') < 0 ? '?' : '&')
+                    + "limit=" + PAGE_SIZE;
+            if (cursor != null) {
+                url += "&cursor=" + URLEncoder.encode(cursor, "UTF-8");
+            }
+
+            // Besides the UrlRequest API used for the images, Cronet provides an
+            // HttpURLConnection implementation. Its blocking InputStream is convenient for
+            // streaming parsers.
+            HttpURLConnection connection =
+                    (HttpURLConnection) cronetEngine.openConnection(new URL(url));
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                connection.disconnect();
+                throw new IOException("Unexpected status code " + responseCode);
+            }
+            return new FilterReader(new InputStreamReader(
+                    connection.getInputStream(), StandardCharsets.UTF_8)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        connection.disconnect();
+                    }
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.samples.cronet_sample.data.ImageRepository.Quality;
+
+import org.chromium.net.ExperimentalCronetEngine;
+import org.junit.Test;
+
+public class ImageQualitySelectorTest {
+
+    private final ImageQualitySelector selector = new ImageQualitySelector();
+
+    private static final int UNKNOWN = -1;
+    private static final int ECT_UNKNOWN =
+            ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_UNKNOWN;
+
+    @Test
+    public void noEstimates_selectsMedium() {
+        assertEquals(Quality.MEDIUM, selector.selectQuality());
+    }
+
+    @Test
+    public void unknownEstimates_keepMedium() {
+        feed(UNKNOWN, UNKNOWN, ECT_UNKNOWN, 5);
+        assertEquals(Quality.MEDIUM, selector.selectQuality());
+    }
+
+    @Test
+    public void fastNetwork_selectsHigh() {
+        feed(50, 10_000, ECT_UNKNOWN, 1);
+        assertEquals(Quality.HIGH, selector.selectQuality());
+    }
+
+    @Test
+    public void moderateNetwork_selectsMedium() {
+        feed(400, 1_000, ECT_UNKNOWN, 1);
+        assertEquals(Quality.MEDIUM, selector.selectQuality());
+    }
+
+    @Test
+    public void congestedNetwork_selectsLow() {
+        feed(1_500, 150, ECT_UNKNOWN, 1);
+        assertEquals(Quality.LOW, selector.selectQuality());
+    }
+
+    @Test
+    public void singleSlowEstimate_keepsFastNetworkHigh() {
+        feed(50, 10_000, ECT_UNKNOWN, 5);
+        feed(2_000, 100, ECT_UNKNOWN, 1);
+        assertEquals(Quality.HIGH, selector.selectQuality());
+    }
+
+    @Test
+    public void alternatingEstimates_keepQuality() {
+        feed(50, 10_000, ECT_UNKNOWN, 5);
+        for (int i = 0; i < 10; i++) {
+            feed(2_000, 100, ECT_UNKNOWN, ImageQualitySelector.ESTIMATES_TO_SWITCH - 1);
+            feed(50, 10_000, ECT_UNKNOWN, 1);
+        }
+        assertEquals(Quality.HIGH, selector.selectQuality());
+    }
+
+    @Test
+    public void sustainedSlowEstimates_downgradeFastNetwork() {
+        feed(50, 10_000, ECT_UNKNOWN, 5);
+        feed(2_000, 100, ECT_UNKNOWN, ImageQualitySelector.ESTIMATES_TO_SWITCH);
+        assertEquals(Quality.LOW, selector.selectQuality());
+    }
+
+    @Test
+    public void sustainedFastEstimates_upgradeSlowNetwork() {
+        feed(2_000, 100, ECT_UNKNOWN, 5);
+        feed(50, 10_000, ECT_UNKNOWN, ImageQualitySelector.ESTIMATES_TO_SWITCH);
+        assertEquals(Quality.HIGH, selector.selectQuality());
+    }
+
+    @Test
+    public void slowEffectiveConnectionType_overridesEstimates() {
+        feed(50, 10_000, ECT_UNKNOWN, 5);
+        feed(50, 10_000, ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_2G,
+                ImageQualitySelector.ESTIMATES_TO_SWITCH);
+        assertEquals(Quality.LOW, selector.selectQuality());
+
+        feed(50, 10_000, ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_3G,
+                ImageQualitySelector.ESTIMATES_TO_SWITCH);
+        assertEquals(Quality.MEDIUM, selector.selectQuality());
+
+        feed(50, 10_000, ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_4G,
+                ImageQualitySelector.ESTIMATES_TO_SWITCH);
+        assertEquals(Quality.HIGH, selector.selectQuality());
+    }
+
+    @Test
+    public void rttOnly_isEnoughToSelect() {
+        feed(1_200, UNKNOWN, ECT_UNKNOWN, 1);
+        assertEquals(Quality.LOW, selector.selectQuality());
+    }
+
+    private void feed(int httpRttMs, int throughputKbps, int effectiveConnectionType,
+            int times) {
+        for (int i = 0; i < times; i++) {
+            selector.onEstimates(httpRttMs, throughputKbps, effectiveConnectionType);
+        }
+    }
+}
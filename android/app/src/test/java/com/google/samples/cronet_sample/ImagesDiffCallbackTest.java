@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.google.samples.cronet_sample.data.ImageIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class ImagesDiffCallbackTest {
+
+    private static final String PREFIX = "https://storage.googleapis.com/cronet/";
+
+    @Test
+    public void unchangedImages_areNotUpdated() {
+        List<String> updates = diff(
+                index("sun.jpg", "flower.jpg", "chair.jpg"),
+                index("sun.jpg", "flower.jpg", "chair.jpg"));
+
+        assertEquals(new ArrayList<String>(), updates);
+    }
+
+    @Test
+    public void onlyInsertedAndRemovedImagesAreUpdated() {
+        List<String> updates = diff(
+                index("sun.jpg", "flower.jpg", "chair.jpg", "white.jpg"),
+                index("moka.jpg", "sun.jpg", "chair.jpg", "white.jpg"));
+
+        // Only the new first image is bound, the ones after it just shift.
+        Collections.sort(updates);
+        assertEquals(Arrays.asList("inserted 0+1", "removed 1+1"), updates);
+    }
+
+    @Test
+    public void onlyComparesNotifiedPrefix() {
+        ImageIndex oldImages = index("sun.jpg", "flower.jpg");
+        ImageIndex newImages = index("sun.jpg", "flower.jpg", "chair.jpg");
+
+        List<String> updates = new ArrayList<>();
+        DiffUtil.calculateDiff(new ImagesDiffCallback(oldImages, 2, newImages, 2), false)
+                .dispatchUpdatesTo(recorder(updates));
+
+        assertEquals(new ArrayList<String>(), updates);
+    }
+
+    private static List<String> diff(ImageIndex oldImages, ImageIndex newImages) {
+        List<String> updates = new ArrayList<>();
+        DiffUtil.calculateDiff(new ImagesDiffCallback(
+                oldImages, oldImages.size(), newImages, newImages.size()), false)
+                .dispatchUpdatesTo(recorder(updates));
+        return updates;
+    }
+
+    private static ListUpdateCallback recorder(List<String> updates) {
+        return new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates.add("inserted " + position + "+" + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates.add("removed " + position + "+" + count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                updates.add("moved " + fromPosition + "->" + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                updates.add("changed " + position + "+" + count);
+            }
+        };
+    }
+
+    private static ImageIndex index(String... names) {
+        ImageIndex index = new ImageIndex();
+        for (String name : names) {
+            index.add(PREFIX + name);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class ImageIndexTest {
+
+    private static final int CATALOG_SIZE = 100_000;
+    private static final String[] HOSTS = {
+            "https://storage.googleapis.com/cronet/catalog/",
+            "https://images.example.com/thumbnails/",
+            "https://cdn.example.org/photos/2021/"
+    };
+
+    private final ImageIndex index = new ImageIndex();
+
+    @Test
+    public void get_returnsAddedUrls() {
+        index.add("https://storage.googleapis.com/cronet/sun.jpg");
+        index.add("https://storage.googleapis.com/cronet/flower.jpg");
+        index.add("no-slash");
+        index.add("https://example.com/café.jpg");
+
+        assertEquals(4, index.size());
+        assertEquals("https://storage.googleapis.com/cronet/sun.jpg", index.get(0));
+        assertEquals("https://storage.googleapis.com/cronet/flower.jpg", index.get(1));
+        assertEquals("no-slash", index.get(2));
+        assertEquals("https://example.com/café.jpg", index.get(3));
+    }
+
+    @Test
+    public void truncate_dropsTrailingEntries() {
+        index.add("https://storage.googleapis.com/cronet/sun.jpg");
+        index.add("https://storage.googleapis.com/cronet/flower.jpg");
+        index.truncate(1);
+        index.add("https://storage.googleapis.com/cronet/chair.jpg");
+
+        assertEquals(2, index.size());
+        assertEquals("https://storage.googleapis.com/cronet/sun.jpg", index.get(0));
+        assertEquals("https://storage.googleapis.com/cronet/chair.jpg", index.get(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfBounds_throws() {
+        index.add("https://storage.googleapis.com/cronet/sun.jpg");
+        index.get(1);
+    }
+
+    @Test
+    public void largeCatalog_roundTrips() {
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            index.add(url(i));
+        }
+
+        assertEquals(CATALOG_SIZE, index.size());
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            int position = random.nextInt(CATALOG_SIZE);
+            assertEquals(url(position), index.get(position));
+        }
+    }
+
+    @Test
+    public void largeCatalog_retainsLessHeapThanStrings() {
+        long heapBefore = usedHeapBytes();
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            index.add(url(i));
+        }
+        long indexBytes = usedHeapBytes() - heapBefore;
+
+        List<String> strings = new ArrayList<>(CATALOG_SIZE);
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            strings.add(url(i));
+        }
+        long stringBytes = usedHeapBytes() - heapBefore - indexBytes;
+
+        // Both are still reachable here, so both were counted above.
+        assertEquals(CATALOG_SIZE, index.size());
+        assertEquals(CATALOG_SIZE, strings.size());
+        // The index stores the file name and an 8 byte packed entry, plus slack from array
+        // growth. A list of Strings pays for an object, a header and the full URL per entry.
+        double bytesPerEntry = indexBytes / (double) CATALOG_SIZE;
+        assertTrue("Retained bytes per entry: " + bytesPerEntry, bytesPerEntry < 40);
+        assertTrue("Index: " + indexBytes + " bytes, strings: " + stringBytes + " bytes",
+                indexBytes * 2 < stringBytes);
+    }
+
+    private static String url(int i) {
+        return HOSTS[i % HOSTS.length] + String.format("img_%06d.jpg", i);
+    }
+
+    // Heap used by reachable objects. System.gc() is only a hint, so collect a few times and keep
+    // the lowest figure, by then the garbage left by building the catalogs is gone.
+    private static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        long usedBytes = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            usedBytes = Math.min(usedBytes, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return usedBytes;
+    }
+}
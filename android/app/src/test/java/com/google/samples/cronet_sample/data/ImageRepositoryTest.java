@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.cronet_sample.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class ImageRepositoryTest {
+
+    private static final int CATALOG_SIZE = 100_000;
+    private static final int PAGE_SIZE = 500;
+
+    private final List<String> requestedCursors = new ArrayList<>();
+    private final List<int[]> loadedPages = new ArrayList<>();
+
+    @Test
+    public void largeCatalog_loadsEveryPageInOrder() {
+        ImageRepository repository = repository(cursor -> {
+            int start = cursor == null ? 0 : Integer.parseInt(cursor);
+            return new StringReader(page(start, Math.min(start + PAGE_SIZE, CATALOG_SIZE),
+                    start + PAGE_SIZE < CATALOG_SIZE ? "\"" + (start + PAGE_SIZE) + "\"" : null));
+        });
+
+        ImageIndex images = repository.reload(this::onImagesLoaded);
+        for (int i = 0; i < 2 * CATALOG_SIZE / PAGE_SIZE; i++) {
+            repository.loadNextPage(this::onImagesLoaded);
+        }
+
+        assertEquals(CATALOG_SIZE, images.size());
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            assertEquals(url(i), images.get(i));
+        }
+        assertEquals(CATALOG_SIZE / PAGE_SIZE, requestedCursors.size());
+        assertEquals(null, requestedCursors.get(0));
+        assertEquals("500", requestedCursors.get(1));
+        assertEquals(Integer.toString(CATALOG_SIZE - PAGE_SIZE),
+                requestedCursors.get(requestedCursors.size() - 1));
+        assertEquals(CATALOG_SIZE / PAGE_SIZE, loadedPages.size());
+        for (int page = 0; page < loadedPages.size(); page++) {
+            assertEquals(page * PAGE_SIZE, loadedPages.get(page)[0]);
+            assertEquals(PAGE_SIZE, loadedPages.get(page)[1]);
+            assertEquals(page < loadedPages.size() - 1 ? 1 : 0, loadedPages.get(page)[2]);
+        }
+    }
+
+    @Test
+    public void nullNextCursor_endsCatalog() {
+        ImageRepository repository = repository(cursor -> new StringReader(
+                "{\"next_cursor\": null, \"images\": [\"" + url(0) + "\"]}"));
+
+        ImageIndex images = repository.reload(this::onImagesLoaded);
+        repository.loadNextPage(this::onImagesLoaded);
+
+        assertEquals(1, images.size());
+        assertEquals(Arrays.asList((String) null), requestedCursors);
+    }
+
+    @Test
+    public void unknownFields_areSkipped() {
+        ImageRepository repository = repository(cursor -> new StringReader(
+                "{\"version\": 2, \"images\": [\"" + url(0) + "\"], \"extra\": {\"a\": [1, 2]}}"));
+
+        ImageIndex images = repository.reload(this::onImagesLoaded);
+
+        assertEquals(1, images.size());
+        assertEquals(url(0), images.get(0));
+    }
+
+    @Test
+    public void failedNextPage_isRetriedWithSameCursor() {
+        // The second page fails after part of it has been parsed, then succeeds.
+        boolean[] failed = {false};
+        ImageRepository repository = repository(cursor -> {
+            if (cursor == null) {
+                return new StringReader(page(0, PAGE_SIZE, "\"p2\""));
+            }
+            if (!failed[0]) {
+                failed[0] = true;
+                return new StringReader(page(PAGE_SIZE, 2 * PAGE_SIZE, null)
+                        .substring(0, 1000));
+            }
+            return new StringReader(page(PAGE_SIZE, 2 * PAGE_SIZE, null));
+        });
+
+        ImageIndex images = repository.reload(this::onImagesLoaded);
+        repository.loadNextPage(this::onImagesLoaded);
+        assertEquals(PAGE_SIZE, images.size());
+        // The failure is reported as an empty page, with more to load.
+        assertEquals(2, loadedPages.size());
+        assertEquals(PAGE_SIZE, loadedPages.get(1)[0]);
+        assertEquals(0, loadedPages.get(1)[1]);
+        assertEquals(1, loadedPages.get(1)[2]);
+
+        repository.loadNextPage(this::onImagesLoaded);
+
+        assertEquals(Arrays.asList(null, "p2", "p2"), requestedCursors);
+        assertEquals(2 * PAGE_SIZE, images.size());
+        for (int i = 0; i < 2 * PAGE_SIZE; i++) {
+            assertEquals(url(i), images.get(i));
+        }
+        assertEquals(3, loadedPages.size());
+        assertEquals(PAGE_SIZE, loadedPages.get(2)[0]);
+        assertEquals(PAGE_SIZE, loadedPages.get(2)[1]);
+        assertEquals(0, loadedPages.get(2)[2]);
+    }
+
+    @Test
+    public void listener_canLoadNextPageRightAway() {
+        ImageRepository repository = repository(cursor -> {
+            int start = cursor == null ? 0 : Integer.parseInt(cursor);
+            return new StringReader(page(start, start + PAGE_SIZE,
+                    start + PAGE_SIZE < 3 * PAGE_SIZE ? "\"" + (start + PAGE_SIZE) + "\"" : null));
+        });
+
+        // Like a refresh catching up with the number of images shown before it.
+        ImageIndex images = repository.reload(new ImageRepository.Listener() {
+            @Override
+            public void onImagesLoaded(ImageIndex images, int positionStart, int count,
+                    boolean hasMore) {
+                ImageRepositoryTest.this.onImagesLoaded(images, positionStart, count, hasMore);
+                if (hasMore) {
+                    repository.loadNextPage(this);
+                }
+            }
+        });
+
+        assertEquals(3 * PAGE_SIZE, images.size());
+        assertEquals(3, loadedPages.size());
+    }
+
+    @Test
+    public void failedFirstPage_fallsBackToBuiltInImages() {
+        ImageRepository repository = repository(cursor -> {
+            throw new IOException("Unexpected status code 404");
+        });
+
+        ImageIndex images = repository.reload(this::onImagesLoaded);
+        repository.loadNextPage(this::onImagesLoaded);
+
+        assertEquals(6, images.size());
+        assertTrue(images.get(0).startsWith("https://storage.googleapis.com/cronet/"));
+        assertEquals(1, requestedCursors.size());
+        assertEquals(1, loadedPages.size());
+        assertEquals(0, loadedPages.get(0)[0]);
+        assertEquals(6, loadedPages.get(0)[1]);
+    }
+
+    @Test
+    public void malformedFirstPage_fallsBackToBuiltInImages() {
+        ImageRepository repository = repository(cursor -> new StringReader(
+                "{\"images\": [\"" + url(0) + "\", 42"));
+
+        ImageIndex images = repository.reload(this::onImagesLoaded);
+
+        assertEquals(6, images.size());
+        assertTrue(images.get(0).startsWith("https://storage.googleapis.com/cronet/"));
+    }
+
+    @Test
+    public void emptyPages_areSkipped() {
+        ImageRepository repository = repository(cursor -> new StringReader(cursor == null
+                ? "{\"images\": [], \"next_cursor\": \"p2\"}"
+                : page(0, 1, null)));
+
+        ImageIndex images = repository.reload(this::onImagesLoaded);
+
+        assertEquals(Arrays.asList(null, "p2"), requestedCursors);
+        assertEquals(1, images.size());
+        assertEquals(1, loadedPages.size());
+        assertEquals(1, loadedPages.get(0)[1]);
+    }
+
+    @Test
+    public void failureAfterEmptyFirstPage_isRetriedWithoutFallback() {
+        boolean[] failed = {false};
+        ImageRepository repository = repository(cursor -> {
+            if (cursor == null) {
+                return new StringReader("{\"images\": [], \"next_cursor\": \"p2\"}");
+            }
+            if (!failed[0]) {
+                failed[0] = true;
+                throw new IOException("Unexpected status code 503");
+            }
+            return new StringReader(page(0, PAGE_SIZE, null));
+        });
+
+        ImageIndex images = repository.reload(this::onImagesLoaded);
+        assertEquals(0, images.size());
+        assertEquals(1, loadedPages.size());
+        assertEquals(0, loadedPages.get(0)[1]);
+        assertEquals(1, loadedPages.get(0)[2]);
+
+        repository.loadNextPage(this::onImagesLoaded);
+
+        assertEquals(Arrays.asList(null, "p2", "p2"), requestedCursors);
+        assertEquals(PAGE_SIZE, images.size());
+        assertEquals(url(0), images.get(0));
+    }
+
+    @Test
+    public void emptyCatalog_isComplete() {
+        ImageRepository repository = repository(cursor -> new StringReader("{\"images\": []}"));
+
+        ImageIndex images = repository.reload(this::onImagesLoaded);
+        repository.loadNextPage(this::onImagesLoaded);
+
+        assertEquals(0, images.size());
+        assertEquals(1, requestedCursors.size());
+        assertEquals(1, loadedPages.size());
+        assertEquals(0, loadedPages.get(0)[2]);
+    }
+
+    @Test
+    public void noManifest_usesBuiltInImagesWithoutFetching() {
+        ImageRepository repository = new ImageRepository(null, Runnable::run);
+
+        ImageIndex images = repository.reload(this::onImagesLoaded);
+        repository.loadNextPage(this::onImagesLoaded);
+
+        assertEquals(6, images.size());
+        assertEquals(1, loadedPages.size());
+        assertEquals(6, loadedPages.get(0)[1]);
+    }
+
+    @Test
+    public void reload_startsFromFirstPage() {
+        ImageRepository repository = repository(cursor -> new StringReader(
+                page(0, PAGE_SIZE, cursor == null ? "\"p2\"" : null)));
+
+        ImageIndex first = repository.reload(this::onImagesLoaded);
+        ImageIndex second = repository.reload(this::onImagesLoaded);
+
+        assertNotSame(first, second);
+        assertEquals(Arrays.asList(null, null), requestedCursors);
+        assertEquals(PAGE_SIZE, first.size());
+        assertEquals(PAGE_SIZE, second.size());
+    }
+
+    @Test
+    public void variants_selectServerRenditions() {
+        ImageRepository repository = repository(cursor -> new StringReader(
+                "{\"images\": [\"" + url(0) + "\"],"
+                        + " \"variants\": {\"low\": \"w=320\", \"MEDIUM\": \"w=640\","
+                        + " \"xl\": \"w=4096\"}}"));
+        repository.reload(this::onImagesLoaded);
+
+        ImageRepository.Variant low = repository.getImage(url(0), ImageRepository.Quality.LOW);
+        assertEquals(url(0) + "?w=320", low.url);
+        assertEquals(1, low.sampleSize);
+        assertEquals(url(0) + "?w=640",
+                repository.getImage(url(0), ImageRepository.Quality.MEDIUM).url);
+        assertEquals("https://example.com/a.jpg?v=1&w=320",
+                repository.getImage("https://example.com/a.jpg?v=1",
+                        ImageRepository.Quality.LOW).url);
+        ImageRepository.Variant high = repository.getImage(url(0), ImageRepository.Quality.HIGH);
+        assertEquals(url(0), high.url);
+        assertEquals(1, high.sampleSize);
+    }
+
+    @Test
+    public void noVariants_downsamplesLowQualityOnDecode() {
+        ImageRepository repository = new ImageRepository(null, Runnable::run);
+        repository.reload(this::onImagesLoaded);
+
+        ImageRepository.Variant low = repository.getImage(url(0), ImageRepository.Quality.LOW);
+        assertEquals(url(0), low.url);
+        assertEquals(2, low.sampleSize);
+        assertEquals(1, repository.getImage(url(0), ImageRepository.Quality.MEDIUM).sampleSize);
+    }
+
+    private ImageRepository repository(ImageRepository.PageSource pages) {
+        // Pages are loaded synchronously, so every call below has completed when it returns.
+        return new ImageRepository(cursor -> {
+            requestedCursors.add(cursor);
+            return pages.openPage(cursor);
+        }, Runnable::run);
+    }
+
+    private void onImagesLoaded(ImageIndex images, int positionStart, int count,
+            boolean hasMore) {
+        loadedPages.add(new int[] {positionStart, count, hasMore ? 1 : 0});
+    }
+
+    // A manifest page listing images [start, end), nextCursor is written as is.
+    private static String page(int start, int end, String nextCursor) {
+        StringBuilder json = new StringBuilder("{\"images\": [");
+        for (int i = start; i < end; i++) {
+            if (i != start) {
+                json.append(", ");
+            }
+            json.append('"').append(url(i)).append('"');
+        }
+        json.append(']');
+        if (nextCursor != null) {
+            json.append(", \"next_cursor\": ").append(nextCursor);
+        }
+        return json.append('}').toString();
+    }
+
+    private static String url(int i) {
+        return "https://storage.googleapis.com/cronet/catalog/" + String.format("img_%06d.jpg", i);
+    }
+}